@@ -2,7 +2,16 @@ package com.qualityraven.imagetester.api;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Wrapper interface for the AppliTools Image Tester command line utility.
@@ -21,8 +30,30 @@ public class ImageTester {
      */
     private static final String RESULT_PATTERN = "^.*Result url: (.*)$";
 
+    /**
+     * Seconds a child run is given to exit after it reported its result.
+     */
+    private static final long CHILD_EXIT_TIMEOUT = 30;
+
     private final Parameters params;
 
+    /**
+     * (Optional) page fingerprints of the last accepted runs, used to skip the PDF
+     * files, or their page ranges, that did not change since.
+     */
+    private volatile PageFingerprintIndex fingerprintIndex;
+
+    /**
+     * Maximum number of pages of a PDF file tested by a single child run, 0 if
+     * PDF files are not split into page ranges.
+     */
+    private volatile int pagesPerChunk;
+
+    /**
+     * Maximum number of child runs executed in parallel.
+     */
+    private volatile int parallelism;
+
     /**
      * Saves the result of the last test execution in a thread local variable
      * that can be retrieved by the caller.
@@ -47,6 +78,54 @@ public class ImageTester {
         params = Parameters.create(apiKey, optionalParams);
     }
 
+    /**
+     * Enables change detection for single PDF files. The fingerprint of each page is
+     * compared with the fingerprints of the last accepted run stored in the provided
+     * index file. If no page changed, the file is not tested at all and keeps its prior
+     * result. Otherwise the file is tested as a whole, as the baseline holds all of its
+     * pages. If the file is split into page ranges, see
+     * {@link #enablePageChunks(int, int)}, only the page ranges with a changed page are
+     * tested. The last accepted run is tracked per file and per baseline, i.e. per the
+     * parameters selecting the baseline such as the application name, the branch or the
+     * match level. The index is updated after each successful run and may be shared by
+     * several testers. Change detection is skipped if the selected pages are explicitly
+     * set. Requires PDFBox on the class path.
+     *
+     * @param indexFile  file storing the page fingerprints, created if missing
+     * @throws IOException in case the index file cannot be read
+     */
+    public void enableChangeDetection(File indexFile) throws IOException {
+        requirePdfBox("Change detection");
+        fingerprintIndex = PageFingerprintIndex.open(indexFile);
+    }
+
+    /**
+     * Enables splitting single PDF files into page ranges. A PDF file with more than
+     * the provided number of pages is tested in child runs of the page ranges,
+     * executed in parallel. Each page range is tested as a file of its own, named
+     * after the range, e.g. "invoice.p1-100.pdf", so that each page range has its own
+     * baseline. Note that changing the number of pages per chunk changes the names,
+     * and so the baselines. The outcomes are reassembled into a single
+     * {@link TestResult} of the file that fails if any of the page ranges fails. The
+     * result of each page range is available through
+     * {@link TestResult#getPageRangeResults()}. Splitting is skipped if the selected
+     * pages are explicitly set. Requires PDFBox on the class path.
+     *
+     * @param pagesPerChunk  maximum number of pages tested by a child run
+     * @param parallelism    maximum number of child runs executed in parallel
+     */
+    public void enablePageChunks(int pagesPerChunk, int parallelism) {
+        requirePdfBox("Splitting PDF files into page ranges");
+        if (pagesPerChunk < 1) {
+            throw new IllegalArgumentException("Invalid number of pages per chunk " + pagesPerChunk);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pagesPerChunk = pagesPerChunk;
+    }
+
     /**
      * Executes the tester. If there are multiple files tested, then the result code
      * is only set to ResultCode.SUCCESS if *all* of the files passed the visual test.
@@ -61,6 +140,43 @@ public class ImageTester {
         lastResult.set(new HashMap<>());
 
         final Map<String,String> parameters = params.getParamsCopy();
+        final String folder = parameters.get(Parameters.FOLDER.getName());
+        if (folder != null && new File(folder).isDirectory()) {
+            return parseResultsMultipleFiles(start(parameters));
+        }
+
+        final PageFingerprintIndex index = fingerprintIndex;
+        final int chunkSize = pagesPerChunk;
+        if (isPdfFile(folder) && !parameters.containsKey(Parameters.SELECTEDPAGES.getName())) {
+            if (index != null) {
+                return executeChangedPages(index, parameters, folder, chunkSize);
+            }
+            if (chunkSize > 0) {
+                final int pageCount = PageFingerprints.countPages(
+                        new File(folder), parameters.get(Parameters.PDFPASSWORD.getName()));
+                final BitSet allPages = new BitSet(pageCount);
+                allPages.set(0, pageCount);
+                return executePages(parameters, folder, allPages, pageCount, chunkSize);
+            }
+        }
+        return parseResultsSingleFile(start(parameters));
+    }
+
+    /**
+     * Returns the last results executed by the tester. The keys in this map represent the
+     * tested files and the value is the corresponding test result object.
+     * Note that the returned map cannot be modified.
+     *
+     * @return the last results executed by the tester.
+     */
+    public Map<String,TestResult> getLastResult() {
+        if (lastResult.get() == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(lastResult.get());
+    }
+
+    private static Process start(final Map<String,String> parameters) throws IOException {
         final List<String> args = new ArrayList<>();
         args.add("java");
         args.add("-jar");
@@ -73,48 +189,231 @@ public class ImageTester {
             }
         }
 
+        return Runtime.getRuntime().exec(args.toArray(new String[0]));
+    }
 
-        Process process = Runtime.getRuntime().exec(args.toArray(new String[0]));
-        final String folder = parameters.get(Parameters.FOLDER.getName());
-        if (folder != null && new File(folder).isDirectory()) {
-            return parseResultsMultipleFiles(process);
-        } else {
-            return parseResultsSingleFile(process);
+    private ResultCode executeChangedPages(final PageFingerprintIndex index, final Map<String,String> parameters,
+                                           final String fileName, final int chunkSize) throws IOException {
+        final File pdf = new File(fileName);
+        final long[] current = PageFingerprints.compute(pdf, parameters.get(Parameters.PDFPASSWORD.getName()));
+        final Map<String,String> keyParameters = new HashMap<>(parameters);
+        if (chunkSize > 0 && current.length > chunkSize) {
+            // the page ranges are tested under their own names, i.e. against their own baselines
+            keyParameters.put("pagesPerChunk", Integer.toString(chunkSize));
+        }
+        final String key = PageFingerprintIndex.key(pdf, keyParameters);
+        final long[] previous = index.get(key);
+        final BitSet changedPages = PageFingerprintIndex.changedPages(previous, current);
+
+        if (previous != null && previous.length == current.length && changedPages.isEmpty()) {
+            // nothing changed, so the result of the last accepted run stands
+            appendLastResult(fileName, ResultCode.SUCCESS);
+            return ResultCode.SUCCESS;
+        }
+
+        final ResultCode resultCode = executePages(parameters, fileName, changedPages, current.length, chunkSize);
+        if (resultCode == ResultCode.SUCCESS) {
+            index.put(key, current);
+        }
+        return resultCode;
+    }
+
+    private ResultCode executePages(final Map<String,String> parameters, final String fileName,
+                                    final BitSet changedPages, final int pageCount, final int chunkSize)
+            throws IOException {
+        if (chunkSize > 0 && pageCount > chunkSize) {
+            return executeChunks(parameters, fileName, changedPages, pageCount, chunkSize);
+        }
+        // A run of some of the pages cannot match the baseline of the whole document,
+        // so the document is tested as a whole.
+        return parseResultsSingleFile(start(parameters));
+    }
+
+    private ResultCode executeChunks(final Map<String,String> parameters, final String fileName,
+                                     final BitSet changedPages, final int pageCount, final int chunkSize)
+            throws IOException {
+        final Path pdf = Paths.get(fileName);
+        final Path chunkDirectory = Files.createTempDirectory("imagetester-chunks");
+        final int chunks = (pageCount + chunkSize - 1) / chunkSize;
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks));
+        final List<Process> processes = new ArrayList<>();
+        boolean completed = false;
+        try {
+            final Map<String,Future<TestResult>> futures = new LinkedHashMap<>();
+            for (int from = 0; from < pageCount; from += chunkSize) {
+                final int to = Math.min(from + chunkSize, pageCount);
+                final String range = Parameters.formatPageRange(from + 1, to);
+                final Path chunkFile = chunkDirectory.resolve(chunkFileName(pdf.getFileName().toString(), range));
+                final int changedPage = changedPages.nextSetBit(from);
+                if (changedPage == -1 || changedPage >= to) {
+                    // no page of the range changed, so the result of its last accepted run stands
+                    futures.put(range, CompletableFuture.completedFuture(
+                            new TestResult(chunkFile.getFileName().toString(), ResultCode.SUCCESS)));
+                    continue;
+                }
+
+                // the range is tested as a whole, as its baseline holds all of its pages
+                linkOrCopy(pdf, chunkFile);
+                final Map<String,String> chunkParameters = new HashMap<>(parameters);
+                chunkParameters.put(Parameters.FOLDER.getName(), chunkFile.toString());
+                chunkParameters.put(Parameters.SELECTEDPAGES.getName(), range);
+                futures.put(range, executor.submit(() ->
+                        runChunk(chunkParameters, chunkFile.getFileName().toString(), processes, executor)));
+            }
+
+            final Map<String,TestResult> pageRangeResults = new LinkedHashMap<>();
+            for (Map.Entry<String,Future<TestResult>> future : futures.entrySet()) {
+                pageRangeResults.put(future.getKey(), getChunkResult(future.getValue(), fileName, future.getKey()));
+            }
+            final TestResult result = TestResult.combine(fileName, pageRangeResults);
+            lastResult.get().put(fileName, result);
+            completed = true;
+            return result.getResultCode();
+        } finally {
+            executor.shutdownNow();
+            synchronized (processes) {
+                for (Process process : processes) {
+                    stop(process, completed);
+                }
+            }
+            deleteChunkFiles(chunkDirectory);
         }
     }
 
     /**
-     * Returns the last results executed by the tester. The keys in this map represent the
-     * tested files and the value is the corresponding test result object.
-     * Note that the returned map cannot be modified.
-     *
-     * @return the last results executed by the tester.
+     * Returns the name of the file a page range of the provided file is tested as,
+     * e.g. "invoice.p1-100.pdf".
      */
-    public Map<String,TestResult> getLastResult() {
-        if (lastResult.get() == null) {
-            return Collections.emptyMap();
+    private static String chunkFileName(final String fileName, final String range) {
+        final int extension = fileName.lastIndexOf('.');
+        return extension < 0
+                ? fileName + ".p" + range
+                : fileName.substring(0, extension) + ".p" + range + fileName.substring(extension);
+    }
+
+    private static void linkOrCopy(final Path source, final Path target) throws IOException {
+        try {
+            Files.createLink(target, source.toAbsolutePath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. the temporary directory is on another file system
+            Files.copy(source, target);
         }
-        return Collections.unmodifiableMap(lastResult.get());
+    }
+
+    private static TestResult runChunk(final Map<String,String> parameters, final String testName,
+                                       final List<Process> processes, final ExecutorService executor)
+            throws IOException {
+        final Process process = start(parameters);
+        synchronized (processes) {
+            processes.add(process);
+            if (executor.isShutdown()) {
+                // the run was abandoned while the child run was starting
+                process.destroy();
+                throw new InterruptedIOException("Testing " + testName + " was cancelled");
+            }
+        }
+        return readSingleFileResult(process, testName);
+    }
+
+    private static TestResult getChunkResult(final Future<TestResult> future, final String fileName,
+                                             final String range) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while testing " + fileName);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to test pages " + range + " of " + fileName, e.getCause());
+        }
+    }
+
+    /**
+     * Stops a child run. A child run that reported its result is given some time to
+     * exit on its own, any other child run is destroyed right away.
+     */
+    private static void stop(final Process process, final boolean graceful) {
+        try {
+            if (graceful && process.waitFor(CHILD_EXIT_TIMEOUT, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        process.destroy();
+    }
+
+    private static void deleteChunkFiles(final Path chunkDirectory) {
+        // best effort, a leftover in the temporary directory must not fail the run
+        final File[] chunkFiles = chunkDirectory.toFile().listFiles();
+        if (chunkFiles != null) {
+            for (File chunkFile : chunkFiles) {
+                chunkFile.delete();
+            }
+        }
+        chunkDirectory.toFile().delete();
+    }
+
+    /**
+     * PDFBox is an optional dependency, only needed to read the pages of PDF files.
+     */
+    private static void requirePdfBox(final String feature) {
+        try {
+            Class.forName("org.apache.pdfbox.pdmodel.PDDocument", false, ImageTester.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(feature + " requires org.apache.pdfbox:pdfbox on the class path", e);
+        }
+    }
+
+    private static boolean isPdfFile(final String fileName) {
+        return fileName != null
+                && fileName.toLowerCase(Locale.ROOT).endsWith(".pdf")
+                && new File(fileName).isFile();
     }
 
     private ResultCode parseResultsSingleFile(final Process process) throws IOException {
         final String fileName = params.getParamsCopy().get(Parameters.FOLDER.getName());
+        final TestResult result = readSingleFileResult(process, fileName);
+        lastResult.get().put(fileName == null ? "" : fileName, result);
+        return result.getResultCode();
+    }
+
+    private static TestResult readSingleFileResult(final Process process, final String fileName)
+            throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("[New]") || line.contains("[Passed]")) {
-                    appendLastResult(fileName, ResultCode.SUCCESS);
-                    return ResultCode.SUCCESS;
-                } else if (line.contains("[Mismatch]")) {
-                    appendLastResult(fileName, ResultCode.FAIL);
-                    return ResultCode.FAIL;
+            return readSingleFileResult(reader, fileName);
+        }
+    }
+
+    /**
+     * Returns the result of a single file read from the output of the tester.
+     *
+     * @param reader    output of the tester
+     * @param fileName  file name
+     * @return the result of a single file read from the output of the tester.
+     * @throws IOException in case the output cannot be read
+     */
+    static TestResult readSingleFileResult(final BufferedReader reader, final String fileName)
+            throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.contains("[New]") || line.contains("[Passed]")) {
+                return new TestResult(fileName, ResultCode.SUCCESS);
+            } else if (line.contains("[Mismatch]")) {
+                // the URL of the result follows the mismatch, see parseResultsMultipleFiles
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains("+ Result url")) {
+                        final String resultUrl = line.replaceFirst(RESULT_PATTERN, "$1");
+                        return new TestResult(fileName, ResultCode.FAIL, URI.create(resultUrl.trim()));
+                    }
                 }
+                return new TestResult(fileName, ResultCode.FAIL);
             }
-
         }
 
-        appendLastResult(fileName, ResultCode.EXECUTION_ERROR);
-        return ResultCode.EXECUTION_ERROR;
+        return new TestResult(fileName, ResultCode.EXECUTION_ERROR);
     }
 
     private ResultCode parseResultsMultipleFiles(final Process process) throws IOException {
@@ -0,0 +1,295 @@
+package com.qualityraven.imagetester.api;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Stores the page fingerprints of the documents from their last accepted test run.
+ * The index is kept in memory for quick lookups and persisted to a compact binary
+ * file: a header followed by one entry per document with its key, the number of
+ * pages and one 64-bit fingerprint per page.
+ * <p>
+ * The testers of a JVM share one index per file. Updates are merged with the
+ * contents of the file under a file lock, so that testers in other JVMs using the
+ * same file do not lose each other's entries, and the file is read again when it
+ * was replaced by another JVM, so that lookups see the runs accepted there.
+ * <p>
+ * This class does not depend on PDFBox, so that the tester can be used without it
+ * as long as change detection is not enabled.
+ */
+class PageFingerprintIndex {
+
+    /**
+     * Marks the index file format, "ITPI" in ASCII.
+     */
+    private static final int MAGIC = 0x49545049;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the smallest entry: an empty key and no pages.
+     */
+    private static final int MIN_ENTRY_SIZE = 2 + 4;
+
+    /**
+     * Parameters that do not affect the baseline a document is tested against.
+     */
+    private static final Set<String> NON_BASELINE_PARAMETERS = new HashSet<>(Arrays.asList(
+            Parameters.FOLDER.getName(),
+            Parameters.SELECTEDPAGES.getName(),
+            Parameters.LOGFILE.getName(),
+            Parameters.PROXY.getName(),
+            Parameters.PDFPASSWORD.getName()));
+
+    /**
+     * The indexes opened in this JVM by canonical file path.
+     */
+    private static final Map<String,PageFingerprintIndex> INDEXES = new HashMap<>();
+
+    private final File file;
+    private final Map<String,long[]> fingerprints = new HashMap<>();
+
+    /**
+     * Identifies the version of the file the fingerprints were read from or written to.
+     */
+    private Object loadedVersion;
+
+    private PageFingerprintIndex(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the index stored in the provided file. An empty index is returned if
+     * the file does not exist yet.
+     *
+     * @param file  index file
+     * @return the index stored in the provided file.
+     * @throws IOException in case the file cannot be read or is not an index file
+     */
+    static PageFingerprintIndex open(final File file) throws IOException {
+        final File canonicalFile = file.getCanonicalFile();
+        synchronized (INDEXES) {
+            PageFingerprintIndex index = INDEXES.get(canonicalFile.getPath());
+            if (index == null) {
+                index = new PageFingerprintIndex(canonicalFile);
+                index.reload();
+                INDEXES.put(canonicalFile.getPath(), index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the key of the document tested with the provided parameters. Besides
+     * the document, the key covers the parameters that select the baseline, e.g. the
+     * application name, the branch or the match level, so that a document accepted
+     * against one baseline is not considered accepted against another.
+     *
+     * @param pdf         tested document
+     * @param parameters  command-line arguments of the test
+     * @return the key of the document tested with the provided parameters.
+     * @throws IOException in case the canonical path of the document cannot be resolved
+     */
+    static String key(final File pdf, final Map<String,String> parameters) throws IOException {
+        final MessageDigest digest = newDigest();
+        for (Map.Entry<String,String> parameter : new TreeMap<>(parameters).entrySet()) {
+            if (!NON_BASELINE_PARAMETERS.contains(parameter.getKey())) {
+                digest.update((parameter.getKey() + '=' + parameter.getValue() + '\n')
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return String.format("%s#%016x", pdf.getCanonicalPath(), ByteBuffer.wrap(digest.digest()).getLong());
+    }
+
+    /**
+     * Returns the page fingerprints of the last accepted run of the document, or
+     * null if the document has not been accepted yet.
+     *
+     * @param key  document key
+     * @return the page fingerprints of the last accepted run of the document.
+     * @throws IOException in case the file was replaced and cannot be read
+     */
+    synchronized long[] get(final String key) throws IOException {
+        if (!Objects.equals(version(file), loadedVersion)) {
+            reload();
+        }
+        return fingerprints.get(key);
+    }
+
+    /**
+     * Records the page fingerprints of an accepted run of the document and saves
+     * the index, merged with the entries saved by others in the meantime.
+     *
+     * @param key    document key
+     * @param pages  page fingerprints
+     * @throws IOException in case the index cannot be saved
+     */
+    synchronized void put(final String key, final long[] pages) throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        // the index file itself is replaced on save, so lock a sibling file
+        final File lockFile = new File(file.getPath() + ".lock");
+        try (FileChannel channel = FileChannel.open(
+                lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.lock();
+            try {
+                final Map<String,long[]> merged = read(file);
+                merged.put(key, pages.clone());
+                write(file, merged);
+                fingerprints.clear();
+                fingerprints.putAll(merged);
+                loadedVersion = version(file);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a new SHA-256 message digest.
+     *
+     * @return a new SHA-256 message digest.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void reload() throws IOException {
+        // read the version first, a replacement in between is picked up by the next lookup
+        final Object version = version(file);
+        final Map<String,long[]> entries = read(file);
+        fingerprints.clear();
+        fingerprints.putAll(entries);
+        loadedVersion = version;
+    }
+
+    /**
+     * Returns the version of the provided file, or null if it does not exist. The
+     * file is replaced on each save, so besides the modification time, which may be
+     * coarse, the version covers the size and the identity of the file.
+     */
+    private static Object version(final File file) throws IOException {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the pages that changed since the last accepted run. Bit n-1 is set if
+     * page n changed. All the pages are considered changed if the document has not
+     * been accepted yet or the number of pages changed.
+     *
+     * @param previous  (optional) page fingerprints of the last accepted run
+     * @param current   page fingerprints of the document
+     * @return the pages that changed since the last accepted run.
+     */
+    static BitSet changedPages(final long[] previous, final long[] current) {
+        final BitSet pages = new BitSet(current.length);
+        if (previous == null || previous.length != current.length) {
+            pages.set(0, current.length);
+            return pages;
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (previous[i] != current[i]) {
+                pages.set(i);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the entries stored in the provided index file, or an empty map if the
+     * file does not exist.
+     *
+     * @param file  index file
+     * @return the entries stored in the provided index file.
+     * @throws IOException in case the file cannot be read or is not a valid index file
+     */
+    static Map<String,long[]> read(final File file) throws IOException {
+        final Map<String,long[]> entries = new HashMap<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        final long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a page fingerprint index: " + file);
+            }
+            final int count = in.readInt();
+            if (count < 0 || (long) count * MIN_ENTRY_SIZE > length) {
+                throw new IOException("Corrupt page fingerprint index " + file + ": invalid entry count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final int pageCount = in.readInt();
+                if (pageCount < 0 || (long) pageCount * Long.BYTES > length) {
+                    throw new IOException("Corrupt page fingerprint index " + file + ": invalid page count "
+                            + pageCount);
+                }
+                final long[] pages = new long[pageCount];
+                for (int p = 0; p < pages.length; p++) {
+                    pages[p] = in.readLong();
+                }
+                entries.put(key, pages);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces the provided index file with the provided entries. The entries are
+     * written to a temporary file first, so that a failed write does not corrupt
+     * the index.
+     *
+     * @param file     index file
+     * @param entries  entries to store
+     * @throws IOException in case the file cannot be written
+     */
+    static void write(final File file, final Map<String,long[]> entries) throws IOException {
+        final Path temp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String,long[]> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    for (long page : entry.getValue()) {
+                        out.writeLong(page);
+                    }
+                }
+            }
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
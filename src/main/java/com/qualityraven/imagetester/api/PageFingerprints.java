@@ -0,0 +1,213 @@
+package com.qualityraven.imagetester.api;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Computes a fingerprint for each page of a PDF document. The fingerprint covers
+ * everything the page dictionary references, except for the links back to the page
+ * tree: the content streams, all the resources (fonts, images, forms with their
+ * own nested resources, graphics states, patterns, shadings), the annotations with
+ * their appearance streams, and the inherited page attributes. The document-wide
+ * settings affecting rendering, the optional content configuration and the form
+ * defaults, are covered too. Any change that could alter the rendered page yields
+ * a different fingerprint, at a fraction of the cost of rendering the page. The
+ * fingerprint errs on the side of a change: a link annotation pointing to another
+ * page, for example, makes the page depend on the target page as well.
+ */
+final class PageFingerprints {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Keys pointing back to the page tree or to the page of an annotation. Following
+     * them would make the fingerprint of a page depend on all the other pages.
+     */
+    private static final Set<COSName> BACK_LINKS = new HashSet<>(Arrays.asList(COSName.PARENT, COSName.P));
+
+    /**
+     * The fields of the interactive form span all the pages, the widgets of a page
+     * are covered through its annotations.
+     */
+    private static final Set<COSName> FORM_FIELDS = new HashSet<>(Collections.singletonList(COSName.FIELDS));
+
+    private PageFingerprints() {
+    }
+
+    /**
+     * Returns the fingerprints of the pages of the provided PDF document. The
+     * fingerprint of page n (1-based) is stored at index n-1.
+     *
+     * @param pdf       PDF document
+     * @param password  (optional) password of the document
+     * @return the fingerprints of the pages of the provided PDF document.
+     * @throws IOException in case the document cannot be read
+     */
+    static long[] compute(final File pdf, final String password) throws IOException {
+        try (PDDocument doc = PDDocument.load(pdf, password == null ? "" : password)) {
+            final Map<COSStream,byte[]> streamDigests = new IdentityHashMap<>();
+
+            final COSDictionary catalog = doc.getDocumentCatalog().getCOSObject();
+            final Hasher documentHasher = new Hasher(streamDigests);
+            documentHasher.walk(catalog.getItem(COSName.OCPROPERTIES), BACK_LINKS);
+            documentHasher.walk(catalog.getItem(COSName.ACRO_FORM), FORM_FIELDS);
+            final byte[] documentDigest = documentHasher.digest();
+
+            final long[] fingerprints = new long[doc.getNumberOfPages()];
+            for (int i = 0; i < fingerprints.length; i++) {
+                final PDPage page = doc.getPage(i);
+                final Hasher hasher = new Hasher(streamDigests);
+                hasher.out.write(documentDigest);
+                // the page tree is not followed, so add the inheritable attributes explicitly
+                writeRectangle(hasher.out, page.getMediaBox());
+                writeRectangle(hasher.out, page.getCropBox());
+                hasher.out.writeInt(page.getRotation());
+                hasher.walk(page.getResources().getCOSObject(), BACK_LINKS);
+                hasher.walk(page.getCOSObject(), BACK_LINKS);
+                fingerprints[i] = ByteBuffer.wrap(hasher.digest()).getLong();
+            }
+            return fingerprints;
+        }
+    }
+
+    /**
+     * Returns the number of pages of the provided PDF document.
+     *
+     * @param pdf       PDF document
+     * @param password  (optional) password of the document
+     * @return the number of pages of the provided PDF document.
+     * @throws IOException in case the document cannot be read
+     */
+    static int countPages(final File pdf, final String password) throws IOException {
+        try (PDDocument doc = PDDocument.load(pdf, password == null ? "" : password)) {
+            return doc.getNumberOfPages();
+        }
+    }
+
+    private static void writeRectangle(final DataOutputStream out, final PDRectangle rectangle) throws IOException {
+        out.writeFloat(rectangle.getLowerLeftX());
+        out.writeFloat(rectangle.getLowerLeftY());
+        out.writeFloat(rectangle.getUpperRightX());
+        out.writeFloat(rectangle.getUpperRightY());
+    }
+
+    /**
+     * Feeds a graph of PDF objects into a message digest in a canonical form:
+     * each object is tagged with its type, dictionary keys are sorted and objects
+     * already visited are replaced by a back reference, which also stops cycles.
+     */
+    private static final class Hasher {
+
+        private final MessageDigest digest = PageFingerprintIndex.newDigest();
+        private final DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // only the digest is needed
+            }
+        }, digest));
+        private final Map<COSBase,Integer> visited = new IdentityHashMap<>();
+
+        /**
+         * Digests of the raw stream data, shared by the pages so that fonts and images
+         * used on many pages are only read once.
+         */
+        private final Map<COSStream,byte[]> streamDigests;
+
+        private Hasher(final Map<COSStream,byte[]> streamDigests) {
+            this.streamDigests = streamDigests;
+        }
+
+        private byte[] digest() throws IOException {
+            out.flush();
+            return digest.digest();
+        }
+
+        private void walk(final COSBase item, final Set<COSName> skippedKeys) throws IOException {
+            final COSBase base = item instanceof COSObject ? ((COSObject) item).getObject() : item;
+            if (base == null || base instanceof COSNull) {
+                out.writeByte('n');
+            } else if (base instanceof COSBoolean) {
+                out.writeByte('b');
+                out.writeBoolean(((COSBoolean) base).getValue());
+            } else if (base instanceof COSInteger) {
+                out.writeByte('i');
+                out.writeLong(((COSInteger) base).longValue());
+            } else if (base instanceof COSNumber) {
+                out.writeByte('f');
+                out.writeFloat(((COSNumber) base).floatValue());
+            } else if (base instanceof COSName) {
+                out.writeByte('N');
+                writeBytes(((COSName) base).getName().getBytes(StandardCharsets.UTF_8));
+            } else if (base instanceof COSString) {
+                out.writeByte('s');
+                writeBytes(((COSString) base).getBytes());
+            } else {
+                final Integer seen = visited.get(base);
+                if (seen != null) {
+                    out.writeByte('r');
+                    out.writeInt(seen);
+                    return;
+                }
+                visited.put(base, visited.size());
+
+                if (base instanceof COSArray) {
+                    final COSArray array = (COSArray) base;
+                    out.writeByte('a');
+                    out.writeInt(array.size());
+                    for (int i = 0; i < array.size(); i++) {
+                        walk(array.get(i), BACK_LINKS);
+                    }
+                } else if (base instanceof COSDictionary) {
+                    final COSDictionary dictionary = (COSDictionary) base;
+                    final List<COSName> keys = new ArrayList<>(dictionary.keySet());
+                    keys.removeAll(skippedKeys);
+                    keys.sort(Comparator.comparing(COSName::getName));
+                    out.writeByte(base instanceof COSStream ? 'S' : 'd');
+                    out.writeInt(keys.size());
+                    for (COSName key : keys) {
+                        writeBytes(key.getName().getBytes(StandardCharsets.UTF_8));
+                        walk(dictionary.getItem(key), BACK_LINKS);
+                    }
+                    if (base instanceof COSStream) {
+                        out.write(streamDigest((COSStream) base));
+                    }
+                } else {
+                    // not expected in a parsed document, still make it count
+                    out.writeByte('?');
+                    writeBytes(base.getClass().getName().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        private void writeBytes(final byte[] bytes) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private byte[] streamDigest(final COSStream stream) throws IOException {
+            byte[] streamDigest = streamDigests.get(stream);
+            if (streamDigest == null) {
+                final MessageDigest data = PageFingerprintIndex.newDigest();
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                try (InputStream in = stream.createRawInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        data.update(buffer, 0, read);
+                    }
+                }
+                streamDigest = data.digest();
+                streamDigests.put(stream, streamDigest);
+            }
+            return streamDigest;
+        }
+    }
+}
@@ -119,6 +119,18 @@ public class Parameters {
         return new HashMap<>(params);
     }
 
+    /**
+     * Returns the range of pages in the format expected by {@link #SELECTEDPAGES},
+     * e.g. "1-100", or "7" for a single page.
+     *
+     * @param first  first page (1-based, inclusive)
+     * @param last   last page (1-based, inclusive)
+     * @return the range of pages.
+     */
+    static String formatPageRange(final int first, final int last) {
+        return first == last ? Integer.toString(first) : first + "-" + last;
+    }
+
     private void setValue(String name, String value) {
         params.put(name, value);
     }
@@ -1,6 +1,9 @@
 package com.qualityraven.imagetester.api;
 
 import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -10,6 +13,24 @@ public class TestResult {
     private final String file;
     private final ResultCode resultCode;
     private final URI resultURI;
+    private final Map<String,TestResult> pageRangeResults;
+
+    /**
+     * Creates a new instance with the provided parameters.
+     *
+     * @param file              file name
+     * @param resultCode        result code
+     * @param resultURI         (optional) URI of the test result
+     * @param pageRangeResults  results of the page ranges the file was tested in,
+     *                          keyed by page range, e.g. "1-100"
+     */
+    public TestResult(final String file, final ResultCode resultCode, final URI resultURI,
+                      final Map<String,TestResult> pageRangeResults) {
+        this.file = file;
+        this.resultCode = resultCode;
+        this.resultURI = resultURI;
+        this.pageRangeResults = Collections.unmodifiableMap(new LinkedHashMap<>(pageRangeResults));
+    }
 
     /**
      * Creates a new instance with the provided parameters.
@@ -19,9 +40,7 @@ public class TestResult {
      * @param resultURI   (optional) URI of the test result
      */
     public TestResult(final String file, final ResultCode resultCode, final URI resultURI) {
-        this.file = file;
-        this.resultCode = resultCode;
-        this.resultURI = resultURI;
+        this(file, resultCode, resultURI, Collections.<String,TestResult>emptyMap());
     }
 
     /**
@@ -61,6 +80,45 @@ public class TestResult {
         return resultURI;
     }
 
+    /**
+     * Returns the results of the page ranges in page order if the file was tested
+     * in page range chunks, otherwise an empty map. The keys are the page ranges,
+     * e.g. "1-100". With change detection enabled, the page ranges without a changed
+     * page are not tested again. They are listed with a successful result, the result
+     * of their last accepted run. Note that the returned map cannot be modified.
+     *
+     * @return the results of the page ranges.
+     */
+    public Map<String,TestResult> getPageRangeResults() {
+        return pageRangeResults;
+    }
+
+    /**
+     * Returns the result of a file tested in page ranges. The file fails if any of the
+     * page ranges fails, otherwise it fails with an execution error if any of the page
+     * ranges could not be tested. The URI is the one of the first failed page range.
+     *
+     * @param file              file name
+     * @param pageRangeResults  results of the page ranges, keyed by page range
+     * @return the result of a file tested in page ranges.
+     */
+    static TestResult combine(final String file, final Map<String,TestResult> pageRangeResults) {
+        ResultCode resultCode = ResultCode.SUCCESS;
+        URI resultURI = URI.create("");
+        for (TestResult pageRangeResult : pageRangeResults.values()) {
+            if (pageRangeResult.getResultCode() == ResultCode.FAIL) {
+                if (resultCode != ResultCode.FAIL) {
+                    resultURI = pageRangeResult.getResultURI();
+                }
+                resultCode = ResultCode.FAIL;
+            } else if (pageRangeResult.getResultCode() == ResultCode.EXECUTION_ERROR
+                    && resultCode == ResultCode.SUCCESS) {
+                resultCode = ResultCode.EXECUTION_ERROR;
+            }
+        }
+        return new TestResult(file, resultCode, resultURI, pageRangeResults);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -68,11 +126,12 @@ public class TestResult {
         TestResult that = (TestResult) o;
         return getFile().equals(that.getFile()) &&
                 getResultCode() == that.getResultCode() &&
-                getResultURI().equals(that.getResultURI());
+                getResultURI().equals(that.getResultURI()) &&
+                getPageRangeResults().equals(that.getPageRangeResults());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getFile(), getResultCode(), getResultURI());
+        return Objects.hash(getFile(), getResultCode(), getResultURI(), getPageRangeResults());
     }
 }
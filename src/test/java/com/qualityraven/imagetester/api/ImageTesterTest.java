@@ -9,13 +9,18 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.awt.*;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
 
@@ -192,4 +197,139 @@ public class ImageTesterTest {
 
     }
 
+    @Test
+    public void testDirectParams_changeDetection() throws IOException {
+        final File pdf = new File(TARGET_PATH, "invoice-changes-" + System.currentTimeMillis() + ".pdf");
+        final File indexFile = new File(TARGET_PATH, "fingerprints-" + System.currentTimeMillis() + ".bin");
+        final String[] originalPages = { "Page 1", "Page 2", "Page 3" };
+        TestPdfs.create(pdf, originalPages);
+
+        final Map<String,String> params = new HashMap<>();
+        params.put(Parameters.APIKEY.getName(), apiKey);
+        params.put(Parameters.FOLDER.getName(), pdf.toString());
+        final String key = PageFingerprintIndex.key(pdf, params);
+
+        ImageTester tester = new ImageTester(apiKey, Collections.singletonMap(Parameters.FOLDER.getName(), pdf.toString()));
+        tester.enableChangeDetection(indexFile);
+
+        // The proxy does not select the baseline, so this tester shares the accepted runs,
+        // but any child run it starts fails to connect.
+        final Map<String,String> offlineParams = new HashMap<>();
+        offlineParams.put(Parameters.FOLDER.getName(), pdf.toString());
+        offlineParams.put(Parameters.PROXY.getName(), "http://127.0.0.1:9");
+        ImageTester offlineTester = new ImageTester(apiKey, offlineParams);
+        offlineTester.enableChangeDetection(indexFile);
+
+        // Test 1: new file, all pages tested and accepted
+        assertEquals(tester.execute(), ResultCode.SUCCESS);
+        final long[] accepted = PageFingerprintIndex.read(indexFile).get(key);
+        assertNotNull(accepted);
+        assertEquals(accepted.length, 3);
+
+        // Test 2: unchanged file, passes without a child run
+        assertEquals(offlineTester.execute(), ResultCode.SUCCESS);
+        assertEquals(offlineTester.getLastResult().get(pdf.toString()).getResultCode(), ResultCode.SUCCESS);
+
+        // Test 3: a page changed, the file is tested and the failed run is not accepted
+        TestPdfs.create(pdf, "Page 1", "Page two", "Page 3");
+        final long[] changed = PageFingerprints.compute(pdf, null);
+        assertEquals(PageFingerprintIndexTest.pageNumbers(PageFingerprintIndex.changedPages(accepted, changed)),
+                new int[]{2});
+        assertEquals(tester.execute(), ResultCode.FAIL);
+        assertEquals(PageFingerprintIndex.read(indexFile).get(key), accepted);
+
+        // Test 4: the original file again matches the last accepted run
+        TestPdfs.create(pdf, originalPages);
+        assertEquals(offlineTester.execute(), ResultCode.SUCCESS);
+    }
+
+    @Test
+    public void testDirectParams_changeDetectionPageChunks() throws IOException {
+        final File pdf = new File(TARGET_PATH, "invoice-changed-chunks-" + System.currentTimeMillis() + ".pdf");
+        final File indexFile = new File(TARGET_PATH, "fingerprints-chunks-" + System.currentTimeMillis() + ".bin");
+        TestPdfs.create(pdf, "Page 1", "Page 2", "Page 3");
+
+        ImageTester tester = new ImageTester(apiKey, Collections.singletonMap(Parameters.FOLDER.getName(), pdf.toString()));
+        tester.enableChangeDetection(indexFile);
+        tester.enablePageChunks(2, 2);
+
+        // Test 1: new file, all page ranges tested and accepted
+        assertEquals(tester.execute(), ResultCode.SUCCESS);
+        final Map<String,long[]> accepted = PageFingerprintIndex.read(indexFile);
+        assertEquals(accepted.size(), 1);
+
+        // Test 2: the content of page 3 changes, but not its rendering. Only the last page
+        // range is tested again, and it matches its baseline.
+        TestPdfs.createPadded(pdf, 3, "Page 1", "Page 2", "Page 3");
+        assertEquals(tester.execute(), ResultCode.SUCCESS);
+        TestResult testResult = tester.getLastResult().get(pdf.toString());
+        assertEquals(testResult.getResultCode(), ResultCode.SUCCESS);
+        assertEquals(testResult.getPageRangeResults().get("3").getResultCode(), ResultCode.SUCCESS);
+        // the unchanged page range is listed with the result of its last accepted run
+        assertEquals(testResult.getPageRangeResults().keySet(), new LinkedHashSet<>(Arrays.asList("1-2", "3")));
+        assertEquals(testResult.getPageRangeResults().get("1-2").getResultCode(), ResultCode.SUCCESS);
+
+        // the partial run was accepted
+        final long[] updated = PageFingerprintIndex.read(indexFile).values().iterator().next();
+        assertEquals(updated, PageFingerprints.compute(pdf, null));
+        assertEquals(PageFingerprintIndexTest.pageNumbers(
+                PageFingerprintIndex.changedPages(accepted.values().iterator().next(), updated)), new int[]{3});
+    }
+
+    @Test
+    public void testDirectParams_pageChunks() throws IOException {
+        final File pdf = new File(TARGET_PATH, "invoice-chunks-" + System.currentTimeMillis() + ".pdf");
+        TestPdfs.create(pdf, "Page 1", "Page 2", "Page 3");
+
+        ImageTester tester = new ImageTester(
+                apiKey,
+                Collections.singletonMap(Parameters.FOLDER.getName(), pdf.toString()));
+        tester.enablePageChunks(2, 2);
+
+        // Test 1: new file, all page ranges pass
+        assertEquals(tester.execute(), ResultCode.SUCCESS);
+        TestResult testResult = tester.getLastResult().get(pdf.toString());
+        assertNotNull(testResult);
+        assertEquals(testResult.getResultCode(), ResultCode.SUCCESS);
+        assertEquals(testResult.getPageRangeResults().keySet(), new LinkedHashSet<>(Arrays.asList("1-2", "3")));
+        for (TestResult pageRangeResult : testResult.getPageRangeResults().values()) {
+            assertEquals(pageRangeResult.getResultCode(), ResultCode.SUCCESS);
+        }
+
+        // Test 2: change a page of the last range and expect the file to fail
+        TestPdfs.create(pdf, "Page 1", "Page 2", "Page three");
+        assertEquals(tester.execute(), ResultCode.FAIL);
+        testResult = tester.getLastResult().get(pdf.toString());
+        assertEquals(testResult.getResultCode(), ResultCode.FAIL);
+        assertEquals(testResult.getPageRangeResults().get("1-2").getResultCode(), ResultCode.SUCCESS);
+        assertEquals(testResult.getPageRangeResults().get("1-2").getResultURI(), URI.create(""));
+        TestResult failedPageRange = testResult.getPageRangeResults().get("3");
+        assertEquals(failedPageRange.getResultCode(), ResultCode.FAIL);
+        // ensure that the test result URI is set
+        assertNotNull(failedPageRange.getResultURI());
+        assertNotEquals(failedPageRange.getResultURI(), URI.create(""));
+        assertEquals(testResult.getResultURI(), failedPageRange.getResultURI());
+    }
+
+    @DataProvider
+    public Object[][] singleFileOutputTestData() {
+        return new Object[][]{
+                { "[New] - invoice.pdf\n", ResultCode.SUCCESS, "" },
+                { "Starting\n[Passed] - invoice.pdf\n", ResultCode.SUCCESS, "" },
+                { "[Mismatch] - invoice.pdf\n\t + Result url: https://eyes.applitools.com/app/batches/1/2\n",
+                        ResultCode.FAIL, "https://eyes.applitools.com/app/batches/1/2" },
+                { "[Mismatch] - invoice.pdf\n", ResultCode.FAIL, "" },
+                { "Error: cannot connect\n", ResultCode.EXECUTION_ERROR, "" }
+        };
+    }
+
+    @Test(dataProvider = "singleFileOutputTestData")
+    public void testReadSingleFileResult(String output, ResultCode expected, String expectedURI) throws IOException {
+        TestResult testResult = ImageTester.readSingleFileResult(
+                new BufferedReader(new StringReader(output)), "invoice.pdf");
+        assertEquals(testResult.getFile(), "invoice.pdf");
+        assertEquals(testResult.getResultCode(), expected);
+        assertEquals(testResult.getResultURI(), URI.create(expectedURI));
+    }
+
 }
@@ -0,0 +1,158 @@
+package com.qualityraven.imagetester.api;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+@Test
+public class PageFingerprintIndexTest {
+
+    private static final String TARGET_PATH = "target/testfiles/fingerprints";
+
+    @DataProvider
+    public Object[][] changedPagesTestData() {
+        return new Object[][]{
+                { null, new long[]{1, 2, 3}, new int[]{1, 2, 3} },                // not accepted yet
+                { new long[]{1, 2, 3}, new long[]{1, 2, 3}, new int[0] },         // nothing changed
+                { new long[]{1, 2, 3}, new long[]{9, 2, 3}, new int[]{1} },       // single page
+                { new long[]{1, 2, 3, 4}, new long[]{1, 8, 9, 4}, new int[]{2, 3} },
+                { new long[]{1, 2, 3, 4}, new long[]{7, 2, 9, 9}, new int[]{1, 3, 4} },
+                { new long[]{1, 2}, new long[]{1, 2, 3, 4}, new int[]{1, 2, 3, 4} }, // pages added
+                { new long[]{1, 2, 3}, new long[]{1, 2}, new int[]{1, 2} }        // pages removed
+        };
+    }
+
+    @Test(dataProvider = "changedPagesTestData")
+    public void testChangedPages(long[] previous, long[] current, int[] expected) {
+        assertEquals(pageNumbers(PageFingerprintIndex.changedPages(previous, current)), expected);
+    }
+
+    @Test
+    public void testKey() throws IOException {
+        final File pdf = new File(TARGET_PATH, "invoice.pdf");
+        final Map<String,String> parameters = new HashMap<>();
+        parameters.put(Parameters.APIKEY.getName(), "key");
+        parameters.put(Parameters.FOLDER.getName(), pdf.getPath());
+        final String key = PageFingerprintIndex.key(pdf, parameters);
+        assertTrue(key.startsWith(pdf.getCanonicalPath()));
+        assertFalse(key.contains("key"));
+
+        // parameters that do not select the baseline do not change the key
+        parameters.put(Parameters.PROXY.getName(), "http://localhost:3128");
+        parameters.put(Parameters.SELECTEDPAGES.getName(), "1-2");
+        assertEquals(PageFingerprintIndex.key(pdf, parameters), key);
+
+        parameters.put(Parameters.BRANCH.getName(), "feature");
+        assertNotEquals(PageFingerprintIndex.key(pdf, parameters), key);
+    }
+
+    @Test
+    public void testSaveAndOpen() throws IOException {
+        final File indexFile = new File(TARGET_PATH, "index-" + System.currentTimeMillis() + ".bin");
+        assertFalse(indexFile.exists());
+
+        final PageFingerprintIndex index = PageFingerprintIndex.open(indexFile);
+        assertNull(index.get("invoice.pdf"));
+        index.put("invoice.pdf", new long[]{1L, Long.MIN_VALUE, Long.MAX_VALUE});
+        index.put("empty.pdf", new long[0]);
+        assertTrue(indexFile.isFile());
+        assertSame(PageFingerprintIndex.open(indexFile), index);
+
+        final Map<String,long[]> saved = PageFingerprintIndex.read(indexFile);
+        assertEquals(saved.size(), 2);
+        assertEquals(saved.get("invoice.pdf"), new long[]{1L, Long.MIN_VALUE, Long.MAX_VALUE});
+        assertEquals(saved.get("empty.pdf"), new long[0]);
+    }
+
+    @Test
+    public void testMergeOnSave() throws IOException {
+        final File indexFile = new File(TARGET_PATH, "index-merge-" + System.currentTimeMillis() + ".bin");
+        final PageFingerprintIndex index = PageFingerprintIndex.open(indexFile);
+        index.put("first.pdf", new long[]{1L});
+
+        // another process saves an entry in the meantime
+        final Map<String,long[]> external = PageFingerprintIndex.read(indexFile);
+        external.put("second.pdf", new long[]{2L});
+        PageFingerprintIndex.write(indexFile, external);
+
+        // lookups see the entries saved by another process
+        assertEquals(index.get("second.pdf"), new long[]{2L});
+
+        index.put("third.pdf", new long[]{3L});
+        final Map<String,long[]> saved = PageFingerprintIndex.read(indexFile);
+        assertEquals(saved.keySet(), new HashSet<>(Arrays.asList("first.pdf", "second.pdf", "third.pdf")));
+        assertEquals(index.get("second.pdf"), new long[]{2L});
+    }
+
+    @DataProvider
+    public Object[][] corruptIndexTestData() {
+        return new Object[][]{
+                { new int[]{0x49545049, 1, -1} },                   // negative entry count
+                { new int[]{0x49545049, 1, Integer.MAX_VALUE} },    // entry count beyond the file
+                { new int[]{0x49545049, 1, 1, 0, -5} },             // negative page count
+                { new int[]{0x49545049, 1, 1, 0, Integer.MAX_VALUE} },
+                { new int[]{0x49545049, 1, 2, 0, 1} },              // truncated
+                { new int[]{0x12345678, 1, 0} }                     // not an index
+        };
+    }
+
+    @Test(dataProvider = "corruptIndexTestData", expectedExceptions = IOException.class)
+    public void testCorruptIndex(int[] contents) throws IOException {
+        final File indexFile = new File(TARGET_PATH, "index-corrupt-" + System.nanoTime() + ".bin");
+        assertTrue(indexFile.getParentFile().isDirectory() || indexFile.getParentFile().mkdirs());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile))) {
+            for (int i = 0; i < contents.length; i++) {
+                // an empty key takes two bytes
+                if (i == 3) {
+                    out.writeShort(contents[i]);
+                } else {
+                    out.writeInt(contents[i]);
+                }
+            }
+        }
+        PageFingerprintIndex.read(indexFile);
+    }
+
+    @Test
+    public void testFingerprints() throws IOException {
+        final File original = TestPdfs.create(new File(TARGET_PATH, "original.pdf"), "Page 1", "Page 2", "Page 3");
+        final File changed = TestPdfs.create(new File(TARGET_PATH, "changed.pdf"), "Page 1", "Page two", "Page 3");
+
+        final long[] previous = PageFingerprints.compute(original, null);
+        assertEquals(previous.length, 3);
+        assertEquals(PageFingerprints.compute(original, null), previous);
+
+        final long[] current = PageFingerprints.compute(changed, null);
+        assertEquals(pageNumbers(PageFingerprintIndex.changedPages(previous, current)), new int[]{2});
+    }
+
+    @Test
+    public void testFingerprints_resourceChanged() throws IOException {
+        // same content stream, only the font resource differs
+        final File original = TestPdfs.create(new File(TARGET_PATH, "font-original.pdf"),
+                PDType1Font.HELVETICA, "Page 1");
+        final File changed = TestPdfs.create(new File(TARGET_PATH, "font-changed.pdf"),
+                PDType1Font.TIMES_ROMAN, "Page 1");
+
+        assertFalse(Arrays.equals(PageFingerprints.compute(changed, null), PageFingerprints.compute(original, null)));
+    }
+
+    /**
+     * Returns the 1-based page numbers of the provided pages.
+     */
+    static int[] pageNumbers(BitSet pages) {
+        return pages.stream().map(page -> page + 1).toArray();
+    }
+}
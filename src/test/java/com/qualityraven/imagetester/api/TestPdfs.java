@@ -0,0 +1,88 @@
+package com.qualityraven.imagetester.api;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Generates PDF files for the tests.
+ */
+final class TestPdfs {
+
+    private TestPdfs() {
+    }
+
+    /**
+     * Creates a PDF file with a page for each of the provided texts.
+     *
+     * @param pdf        PDF file to create
+     * @param pageTexts  text of the pages
+     * @return the created PDF file.
+     * @throws IOException in case the PDF creation fails.
+     */
+    static File create(File pdf, String... pageTexts) throws IOException {
+        return create(pdf, PDType1Font.HELVETICA, pageTexts);
+    }
+
+    /**
+     * Creates a PDF file with a page for each of the provided texts, written with the
+     * provided font.
+     *
+     * @param pdf        PDF file to create
+     * @param font       font of the texts
+     * @param pageTexts  text of the pages
+     * @return the created PDF file.
+     * @throws IOException in case the PDF creation fails.
+     */
+    static File create(File pdf, PDFont font, String... pageTexts) throws IOException {
+        return create(pdf, font, 0, pageTexts);
+    }
+
+    /**
+     * Creates a PDF file with a page for each of the provided texts, and a no-op save
+     * and restore of the graphics state on the provided page. The content of that page
+     * changes, but not its rendering.
+     *
+     * @param pdf         PDF file to create
+     * @param paddedPage  page to add the no-op to (1-based)
+     * @param pageTexts   text of the pages
+     * @return the created PDF file.
+     * @throws IOException in case the PDF creation fails.
+     */
+    static File createPadded(File pdf, int paddedPage, String... pageTexts) throws IOException {
+        return create(pdf, PDType1Font.HELVETICA, paddedPage, pageTexts);
+    }
+
+    private static File create(File pdf, PDFont font, int paddedPage, String... pageTexts) throws IOException {
+        File pdfDirectory = pdf.getAbsoluteFile().getParentFile();
+        if (!pdfDirectory.exists()) {
+            assertTrue(pdfDirectory.mkdirs());
+        }
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 0; i < pageTexts.length; i++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream contents = new PDPageContentStream(doc, page)) {
+                    if (i + 1 == paddedPage) {
+                        contents.saveGraphicsState();
+                        contents.restoreGraphicsState();
+                    }
+                    contents.beginText();
+                    contents.newLineAtOffset(100, 700);
+                    contents.setFont(font, 12);
+                    contents.showText(pageTexts[i]);
+                    contents.endText();
+                }
+            }
+            doc.save(pdf);
+        }
+        return pdf;
+    }
+}
@@ -0,0 +1,45 @@
+package com.qualityraven.imagetester.api;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+@Test
+public class TestResultTest {
+
+    private static final URI FAILED_URI = URI.create("https://eyes.applitools.com/app/batches/1/2");
+
+    @DataProvider
+    public Object[][] combineTestData() {
+        return new Object[][]{
+                { new ResultCode[]{ResultCode.SUCCESS, ResultCode.SUCCESS}, ResultCode.SUCCESS },
+                { new ResultCode[]{ResultCode.SUCCESS, ResultCode.FAIL}, ResultCode.FAIL },
+                { new ResultCode[]{ResultCode.EXECUTION_ERROR, ResultCode.SUCCESS}, ResultCode.EXECUTION_ERROR },
+                // a mismatch takes precedence over an execution error, in either order
+                { new ResultCode[]{ResultCode.EXECUTION_ERROR, ResultCode.FAIL}, ResultCode.FAIL },
+                { new ResultCode[]{ResultCode.FAIL, ResultCode.EXECUTION_ERROR}, ResultCode.FAIL }
+        };
+    }
+
+    @Test(dataProvider = "combineTestData")
+    public void testCombine(ResultCode[] pageRangeResultCodes, ResultCode expected) {
+        final Map<String,TestResult> pageRangeResults = new LinkedHashMap<>();
+        for (int i = 0; i < pageRangeResultCodes.length; i++) {
+            final ResultCode resultCode = pageRangeResultCodes[i];
+            final String range = (i * 10 + 1) + "-" + (i * 10 + 10);
+            pageRangeResults.put(range, new TestResult("invoice.p" + range + ".pdf", resultCode,
+                    resultCode == ResultCode.FAIL ? FAILED_URI : URI.create("")));
+        }
+
+        final TestResult result = TestResult.combine("invoice.pdf", pageRangeResults);
+        assertEquals(result.getFile(), "invoice.pdf");
+        assertEquals(result.getResultCode(), expected);
+        assertEquals(result.getResultURI(), expected == ResultCode.FAIL ? FAILED_URI : URI.create(""));
+        assertEquals(result.getPageRangeResults(), pageRangeResults);
+    }
+}